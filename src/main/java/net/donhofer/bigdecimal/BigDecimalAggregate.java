@@ -0,0 +1,142 @@
+package net.donhofer.bigdecimal;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * mutable accumulator for count, sum, min, max and average of BigDecimal values
+ * the sum is exact: it is kept as an unscaled long at the largest scale seen so far and only switches to a BigInteger on overflow
+ * accumulators of separate workers can be combined with merge; instances are not thread-safe
+ */
+public class BigDecimalAggregate {
+    // max. no. of digits that always fit into a long
+    private static final int LONG_DIGITS = 18;
+    private static final long[] LONG_TEN_POWERS = new long[LONG_DIGITS + 1];
+    static {
+        LONG_TEN_POWERS[0] = 1;
+        for(int i = 1; i <= LONG_DIGITS; i++) {
+            LONG_TEN_POWERS[i] = LONG_TEN_POWERS[i-1] * 10;
+        }
+    }
+
+    private final int scale;
+    private final RoundingMode roundingMode;
+
+    private long count;
+    private BigDecimal min;
+    private BigDecimal max;
+
+    // the sum is unscaledSum * 10^-sumScale while bigSum is null, else bigSum * 10^-sumScale
+    private long unscaledSum;
+    private BigInteger bigSum;
+    private int sumScale;
+
+    /**
+     * create an empty aggregate
+     * @param scale the scale of the average
+     * @param roundingMode the rounding mode of the average
+     */
+    public BigDecimalAggregate(int scale, RoundingMode roundingMode) {
+        this.scale = scale;
+        this.roundingMode = roundingMode;
+    }
+
+    /**
+     * add a value
+     * @param value the value
+     */
+    public void add(BigDecimal value) {
+        count++;
+        if(min == null || value.compareTo(min) < 0) min = value;
+        if(max == null || value.compareTo(max) > 0) max = value;
+        addToSum(value);
+    }
+
+    /**
+     * add all values of another aggregate, e.g. one of another worker
+     * @param other the other aggregate, which remains unchanged
+     * @return this aggregate
+     */
+    public BigDecimalAggregate merge(BigDecimalAggregate other) {
+        if(other.count == 0) {
+            return this;
+        }
+        count += other.count;
+        if(min == null || other.min.compareTo(min) < 0) min = other.min;
+        if(max == null || other.max.compareTo(max) > 0) max = other.max;
+        addToSum(other.getSum());
+        return this;
+    }
+
+    /**
+     * @return the number of values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the exact sum of all values; zero if there are none
+     */
+    public BigDecimal getSum() {
+        return bigSum == null ? BigDecimal.valueOf(unscaledSum, sumScale) : new BigDecimal(bigSum, sumScale);
+    }
+
+    /**
+     * @return the smallest value; null if there are none
+     */
+    public BigDecimal getMin() {
+        return min;
+    }
+
+    /**
+     * @return the largest value; null if there are none
+     */
+    public BigDecimal getMax() {
+        return max;
+    }
+
+    /**
+     * @return the average, with the scale and rounding mode of this aggregate; null if there are no values
+     */
+    public BigDecimal getAverage() {
+        return count == 0 ? null : getSum().divide(BigDecimal.valueOf(count), scale, roundingMode);
+    }
+
+    private void addToSum(BigDecimal value) {
+        if(value.scale() > sumScale) {
+            alignSum(value.scale());
+        }
+
+        int shift = sumScale - value.scale();
+        if(bigSum == null && value.precision() + shift <= LONG_DIGITS) {
+            // the unscaled value fits into a long, which the scale 0 view returns without creating a BigInteger
+            long unscaled = value.scaleByPowerOfTen(value.scale()).longValue() * LONG_TEN_POWERS[shift];
+            long sum = unscaledSum + unscaled;
+            if(((unscaledSum ^ sum) & (unscaled ^ sum)) >= 0) {
+                unscaledSum = sum;
+                return;
+            }
+        }
+
+        BigInteger unscaled = value.unscaledValue();
+        if(shift > 0) {
+            unscaled = unscaled.multiply(BigInteger.TEN.pow(shift));
+        }
+        bigSum = (bigSum == null ? BigInteger.valueOf(unscaledSum) : bigSum).add(unscaled);
+    }
+
+    private void alignSum(int newScale) {
+        int shift = newScale - sumScale;
+        sumScale = newScale;
+        if(bigSum == null && shift <= LONG_DIGITS) {
+            long limit = Long.MAX_VALUE / LONG_TEN_POWERS[shift];
+            if(unscaledSum <= limit && unscaledSum >= -limit) {
+                unscaledSum *= LONG_TEN_POWERS[shift];
+                return;
+            }
+        }
+        bigSum = (bigSum == null ? BigInteger.valueOf(unscaledSum) : bigSum).multiply(BigInteger.TEN.pow(shift));
+    }
+}
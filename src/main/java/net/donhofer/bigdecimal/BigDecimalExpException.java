@@ -1,15 +1,43 @@
 package net.donhofer.bigdecimal;
 
+import java.io.Serial;
+
 /**
  * Exception thrown by BigDecimalException to wrap underlying exceptions
  */
 public class BigDecimalExpException extends RuntimeException {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * the mathematical expression causing the exception
+     */
+    private final String expression;
+
     /**
      * default constructor
      * @param expression the mathematical expression causing the exception
      * @param cause the Throwable cause
      */
     public BigDecimalExpException(String expression, Throwable cause) {
-        super(String.format("An exception occurred parsing or evaluating the following expression: %s", expression), cause);
+        // no message: Throwable(Throwable) would read the cause's message right away
+        super(null, cause);
+        this.expression = expression;
+    }
+
+    /**
+     * @return the mathematical expression causing the exception
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * the message is only built when requested, as most callers never read it
+     * @return the detail message
+     */
+    @Override
+    public String getMessage() {
+        return String.format("An exception occurred parsing or evaluating the following expression: %s", expression);
     }
 }
@@ -1,10 +1,15 @@
 package net.donhofer.bigdecimal;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.*;
+import java.util.function.Supplier;
 import java.util.regex.MatchResult;
 import java.util.regex.Pattern;
+import java.util.stream.Collector;
 import java.util.stream.Collectors;
 
 /**
@@ -20,6 +25,8 @@ public class BigDecimalExpression {
      */
     public static final RoundingMode defaultRoundingMode = RoundingMode.HALF_UP;
 
+    private static final System.Logger LOGGER = System.getLogger(BigDecimalExpression.class.getName());
+
     /**
      * operator symbols
      */
@@ -28,6 +35,22 @@ public class BigDecimalExpression {
     private static final char MULTIPLY = '*';
     private static final char DIVIDE = '/';
     private static final char POW = '^';
+    private static final char LESS = '<';
+    private static final char LESS_EQUAL = '\u2264';
+    private static final char GREATER = '>';
+    private static final char GREATER_EQUAL = '\u2265';
+    private static final char EQUAL = '=';
+    private static final char NOT_EQUAL = '\u2260';
+    private static final char NOT = '!';
+    private static final char ARG_SEPARATOR = ',';
+
+    /**
+     * name of the conditional if(condition, a, b), which evaluates only the selected branch
+     */
+    private static final String CONDITIONAL_NAME = "if";
+    private static final BigDecimalFunction CONDITIONAL = (args, scale, rMode) -> {
+        throw new IllegalStateException("The conditional is evaluated by the parser");
+    };
 
     /**
      * regular expressions for valid chars
@@ -36,7 +59,7 @@ public class BigDecimalExpression {
     /**
      * regular expressions for illegal chars
      */
-    public static final String ILLEGAL_CHARS_REGEX = "[^a-zA-Z0-9.\\-+*/^_ ()]";
+    public static final String ILLEGAL_CHARS_REGEX = "[^a-zA-Z0-9.\\-+*/^_ (),<>=!]";
 
     /*
      * instance fields
@@ -44,13 +67,32 @@ public class BigDecimalExpression {
     RoundingMode roundingMode;
     int scale;
     Map<String, BigDecimal> vars = new HashMap<>();
+    Map<String, BigDecimalFunction> functions = new HashMap<>();
     String exp;
     char[] chars;
     int currInd;
-
-    // debug flag makes this very verbose
+    // terms resolved by earlier evaluations, indexed by their start position in chars
+    BigDecimal[] terms;
+    // functions bound during parsing, indexed by the position of the opening parenthesis of the call; null if there are none
+    BigDecimalFunction[] functionCalls;
+
+    // variables resolved on demand; slots are assigned on first use and values are memoized per evaluation
+    // resolver and resolved values are only set during an evaluation
+    VariableResolver resolver;
+    List<String> slotNames = new ArrayList<>();
+    // slot + 1 of the variable starting at a given position in chars; 0 if there is none
+    int[] slots;
+    BigDecimal[] resolved;
+
+    // debug flag enables tracing of the terms of each (sub-)expression
     boolean debug = false;
 
+    // instrumentation; operations and maxPrecision are only tracked while instrumented is set
+    EvaluationListener listener;
+    boolean instrumented;
+    int operations;
+    int maxPrecision;
+
     /**
      *
      * create an Instance of BigDecimalExpression with the given scale and rounding mode
@@ -71,7 +113,8 @@ public class BigDecimalExpression {
     }
 
     /**
-     * enables debugging
+     * enables debugging; the terms of each (sub-)expression are traced to the System.Logger
+     * named after this class, at level DEBUG
      * @return this instance with debugging enabled
      */
     public BigDecimalExpression debug() {
@@ -79,6 +122,34 @@ public class BigDecimalExpression {
         return this;
     }
 
+    /**
+     * registers a listener that is notified after each evaluation
+     * @param listener the listener, or null to remove the current one
+     * @return this instance with the listener registered
+     */
+    public BigDecimalExpression listener(EvaluationListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * registers a function that can be called from expressions, e.g. name(a, b); replaces a built-in function of the same name
+     * function calls are bound when the expression is parsed, i.e. functions should be registered before calling parse
+     * @param name the name of the function, following the rules for variable names
+     * @param function the function
+     * @return this instance with the function registered
+     */
+    public BigDecimalExpression function(String name, BigDecimalFunction function) {
+        if(!name.matches(VALID_VAR_REGEX) || name.equals(CONDITIONAL_NAME)) {
+            throw new IllegalArgumentException(String.format("Invalid function name: %s", name));
+        }
+        functions.put(name, Objects.requireNonNull(function));
+        if(chars != null) {
+            functionCalls = bindFunctions(chars);
+        }
+        return this;
+    }
+
     /**
      * set the expression and pass variables in contains as BigDecimals
      * @param exp the mathematical expression
@@ -119,14 +190,28 @@ public class BigDecimalExpression {
     }
 
     private BigDecimalExpression parse(String exp, Map<String, BigDecimal> vars, boolean createMutableCopy) throws BigDecimalExpException {
+        ParseEvent event = new ParseEvent();
+        event.begin();
+
         // remove spaces from expression
         this.exp = exp.replace(" ", "");
         this.chars = this.exp.toCharArray();
+        this.terms = new BigDecimal[chars.length];
         this.vars = vars;
+        this.slotNames = new ArrayList<>();
+        this.slots = null;
+        this.resolved = null;
 
         if(createMutableCopy) {
             this.vars = new HashMap<>(vars);
         }
+        this.functionCalls = bindFunctions(chars);
+
+        if(event.shouldCommit()) {
+            event.expression = this.exp;
+            event.variables = this.vars.size();
+            event.commit();
+        }
 
         return this;
     }
@@ -134,14 +219,22 @@ public class BigDecimalExpression {
     /**
      * state-test method that can be used before calling the eval method
      * tests for: illegal characters in the expression, missing variables or null entries in the vars map
+     * variables that are only supplied by a VariableResolver during eval are reported as missing
      * @return true if all mentioned checks succeed; else false
      */
     public boolean isValid() {
         // validate symbols
         boolean charsAreLegal = !containsIllegalChar(exp);
 
-        // missing or null vars
-        List<String> vars = extractVariables(exp);
+        // missing or null vars; the names of bound function calls are not variables, other occurrences of the same name are
+        List<String> vars = new ArrayList<>(extractVariables(exp));
+        if(functionCalls != null) {
+            for(int i = 0; i < functionCalls.length; i++) {
+                if(functionCalls[i] != null) {
+                    vars.remove(getCallName(chars, i));
+                }
+            }
+        }
         boolean allVarsProvided = this.vars.keySet().containsAll(vars);
 
         return charsAreLegal && allVarsProvided && validateParentheses(exp);
@@ -153,22 +246,133 @@ public class BigDecimalExpression {
      * @throws BigDecimalExpException an unchecked exception that contains error details
      */
     public BigDecimal eval() throws BigDecimalExpException {
+        return eval(null);
+    }
+
+    /**
+     * evaluate the expression with the current state, resolving variables that were not passed to parse on demand
+     * the resolver is called at most once per variable, and only for variables used by the evaluation,
+     * e.g. not for those in the skipped branch of a conditional
+     * @param resolver the resolver for variables that were not passed to parse; may be null
+     * @return a BigDecimal representing the result
+     * @throws BigDecimalExpException an unchecked exception that contains error details
+     */
+    public BigDecimal eval(VariableResolver resolver) throws BigDecimalExpException {
+        this.resolver = resolver;
+        try {
+            return instrumentedEval();
+        } finally {
+            // do not keep the resolver or its values, e.g. the last row of an aggregation, reachable after the evaluation
+            this.resolver = null;
+            if(resolved != null) {
+                Arrays.fill(resolved, null);
+            }
+        }
+    }
+
+    private BigDecimal instrumentedEval() throws BigDecimalExpException {
+        EvaluationEvent event = new EvaluationEvent();
+        instrumented = listener != null || event.isEnabled();
+        if(!instrumented) {
+            return evalExpression();
+        }
+
+        operations = 0;
+        maxPrecision = 0;
+        long start = System.nanoTime();
+        event.begin();
+        try {
+            BigDecimal result = evalExpression();
+            event.end();
+            if(listener != null) {
+                listener.evaluated(exp, System.nanoTime() - start, operations, maxPrecision);
+            }
+            return result;
+        } catch (BigDecimalExpException e) {
+            event.end();
+            event.failed = true;
+            if(listener != null) {
+                listener.failed(exp, System.nanoTime() - start, e);
+            }
+            throw e;
+        } finally {
+            if(event.shouldCommit()) {
+                event.expression = exp;
+                event.operations = operations;
+                event.maxPrecision = maxPrecision;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * evaluate the expression once per row and aggregate the results, without keeping the results of the rows
+     * @param rows the rows, each resolving the variables that were not passed to parse
+     * @return the aggregate of all results; its average uses the scale and rounding mode of this instance
+     * @throws BigDecimalExpException an unchecked exception that contains error details
+     */
+    public BigDecimalAggregate aggregate(Iterable<? extends VariableResolver> rows) throws BigDecimalExpException {
+        BigDecimalAggregate aggregate = new BigDecimalAggregate(scale, roundingMode);
+        for(VariableResolver row : rows) {
+            aggregate.add(eval(row));
+        }
+        return aggregate;
+    }
+
+    /**
+     * evaluate the expression once per row and sum up the results exactly
+     * @param rows the rows, each resolving the variables that were not passed to parse
+     * @return the sum of all results
+     * @throws BigDecimalExpException an unchecked exception that contains error details
+     */
+    public BigDecimal sumOver(Iterable<? extends VariableResolver> rows) throws BigDecimalExpException {
+        return aggregate(rows).getSum();
+    }
+
+    /**
+     * a collector evaluating the expression once per row and aggregating the results, e.g. rows.parallelStream().collect(bde.aggregating())
+     * each worker of a parallel stream evaluates a copy of this instance and the workers' aggregates are merged
+     * @return the collector
+     */
+    public Collector<VariableResolver, ?, BigDecimalAggregate> aggregating() {
+        return Collector.of(
+                () -> new AggregationWorker(copy()),
+                AggregationWorker::add,
+                AggregationWorker::merge,
+                worker -> worker.aggregate,
+                Collector.Characteristics.UNORDERED
+        );
+    }
+
+    /**
+     * @return a new instance with the same configuration and expression, which can be evaluated independently of this one
+     */
+    private BigDecimalExpression copy() {
+        BigDecimalExpression copy = new BigDecimalExpression(scale, roundingMode);
+        copy.debug = debug;
+        copy.listener = listener;
+        copy.functions = new HashMap<>(functions);
+        return copy.parse(exp, vars, true);
+    }
+
+    private BigDecimal evalExpression() throws BigDecimalExpException {
         // the index is maintained globally, due to the recursive nature of the evaluation
         currInd = 0;
         try {
             if(!validateParentheses(exp)) {
                 throw new ArithmeticException("Different no. of opening and closing parentheses");
             }
-            return evaluate();
+            return evaluate(false);
         } catch (Exception e) {
             throw new BigDecimalExpException(exp, e);
         }
     }
 
-    private BigDecimal evaluate() throws ArithmeticException, NumberFormatException {
+    private BigDecimal evaluate(boolean isArgument) throws ArithmeticException, NumberFormatException {
         /*
          * parse and evaluate, each opening parenthesis creates a recursive call of this method
          * to immediately reduce the contained sub-expression to a single BigDecimal
+         * function arguments are evaluated the same way, with the argument separator ending the sub-expression as well
          */
 
         // collect operations as a linked list with a dummy start node
@@ -176,21 +380,28 @@ public class BigDecimalExpression {
         Node node = startNode;
 
         OperationsLists nodesPerOp = new OperationsLists();
+        // local ref, so that error messages built later on still refer to this expression
+        char[] chars = this.chars;
 
         // iterate over the characters of this (sub-)expression
         int start = currInd;
         int expStart = Math.max(0, currInd-1);
+        // end of the last function call; like a term, its result is followed by a subtraction rather than a negative value
+        int callEnd = Integer.MIN_VALUE;
         while(currInd < chars.length) {
             char c = chars[currInd];
             boolean isOp = isOperator(c);
             boolean isEnd = currInd == chars.length-1;
             boolean isStartOfSubExpr = c == '(';
-            boolean isEndOfSubExpr = c == ')';
-            boolean isNegativeValueStart = start == currInd && c == '-';
+            boolean isEndOfSubExpr = c == ')' || c == ARG_SEPARATOR;
+            boolean isNegativeValueStart = start == currInd && c == '-' && callEnd != currInd - 1;
 
+            if(c == ARG_SEPARATOR && !isArgument) {
+                throw new ExpressionSyntaxException(() -> String.format("Argument separator outside of a function call: %s", getCurrentExpression(chars, expStart)));
+            }
 
             // check for implicit multiplication with a previous sub-expr: (...)2
-            if(!isOp && !isStartOfSubExpr && node != startNode && node.op == null) {
+            if(!isOp && !isStartOfSubExpr && !isEndOfSubExpr && node != startNode && node.op == null) {
                 node.op = MULTIPLY;
                 nodesPerOp.add(node);
             }
@@ -206,28 +417,38 @@ public class BigDecimalExpression {
             // case where operator is the first sign encountered, which (legally) happens after a sub-expression has been parsed
             if(isOp && start == currInd) {
                 if(node == startNode){
-                    throw new ArithmeticException(String.format("An expression must not start with an operator: %s", getCurrentExpression(expStart)));
+                    throw new ExpressionSyntaxException(() -> String.format("An expression must not start with an operator: %s", getCurrentExpression(chars, expStart)));
                 }
                 // do not silently accept duplicate operators
                 if(node.op != null) {
-                    throw new ArithmeticException(String.format("duplicate operators (op. 1: %s, op. 2: %s): %s", node.op, c, getCurrentExpression(expStart)));
+                    Character previousOp = node.op;
+                    throw new ExpressionSyntaxException(() -> String.format("duplicate operators (op. 1: %s, op. 2: %s): %s", previousOp, c, getCurrentExpression(chars, expStart)));
                 }
 
-                node.op = c;
+                node.op = readOperator(c);
+            }else if(isEndOfSubExpr && start == currInd && node != startNode && node.op == null) {
+                // a nested sub-expression or function call ends right here, e.g. ((a+b)), so there is no term to read
             }else if(isOp || isEnd || isEndOfSubExpr) {
                 // get the term that ends here / at the last pos
                 BigDecimal val = getCurrentVal(chars, start, currInd, isEnd, isEndOfSubExpr);
-                node = node.appendAndReturn(new Node(val, isOp ? c : null));
+                node = node.appendAndReturn(new Node(val, isOp ? readOperator(c) : null));
+            } else if(isStartOfSubExpr && functionCalls != null && functionCalls[currInd] != null) {
+                // function call; the term read so far is the function's name, possibly preceded by a minus sign
+                boolean negate = chars[start] == '-';
+                BigDecimalFunction function = functionCalls[currInd];
+                BigDecimal val = function == CONDITIONAL ? evaluateConditional() : callFunction(function);
+                node = node.appendAndReturn(new Node(negate ? val.negate() : val, null));
+                callEnd = currInd;
             } else if(isStartOfSubExpr) { // start of sub-expression
 
                 // handle empty parentheses sub-expression: ()
                 if(chars[currInd+1] == ')') {
-                    throw new ArithmeticException(String.format("Empty sub-expressions are not allowed: %s; expression: %s", "()", getCurrentExpression(expStart)));
+                    throw new ExpressionSyntaxException(() -> String.format("Empty sub-expressions are not allowed: %s; expression: %s", "()", getCurrentExpression(chars, expStart)));
                 }
 
                 // implicit multiplication; terms from sub-expressions will be inside a node already, which is simply missing the operator
                 // else (i.e. the node before has an operator), fetch the ongoing term and add a multiplication node
-                if(currInd != 0 && !isOperator(chars[currInd-1]) && chars[currInd-1] != '(') {
+                if(currInd != 0 && !isOperator(chars[currInd-1]) && chars[currInd-1] != '(' && chars[currInd-1] != ARG_SEPARATOR) {
                     if(node.op != null) {
                         BigDecimal val = getCurrentVal(chars, start, currInd, false, false);
                         node = node.appendAndReturn(new Node(val, MULTIPLY));
@@ -239,7 +460,7 @@ public class BigDecimalExpression {
 
                 // parse sub-expression and add resulting value as a node
                 currInd++;
-                node = node.appendAndReturn(new Node(evaluate(), null));
+                node = node.appendAndReturn(new Node(evaluate(false), null));
             }
 
             if(isOp) {
@@ -257,61 +478,228 @@ public class BigDecimalExpression {
         }
 
         // apply operations
-        if(debug) printTerms("found these terms: ", startNode.next);
+        if(debug) traceTerms("found these terms: ", startNode.next);
         BigDecimal result = applyOperations(startNode, nodesPerOp);
-        if(debug) printTerms("final terms: ", startNode.next);
+        if(debug) traceTerms("final terms: ", startNode.next);
+
+        return result;
+    }
 
+    /**
+     * evaluates the arguments of a function call and applies the function
+     * starts at the opening parenthesis and ends at the closing one
+     */
+    private BigDecimal callFunction(BigDecimalFunction function) {
+        List<BigDecimal> args = new ArrayList<>();
+        currInd++;
+        if(chars[currInd] != ')') {
+            while(true) {
+                args.add(evaluate(true));
+                if(currInd >= chars.length) {
+                    String exp = this.exp;
+                    throw new ExpressionSyntaxException(() -> String.format("Missing closing parenthesis of function call in expression %s", exp));
+                }
+                if(chars[currInd] == ')') {
+                    break;
+                }
+                currInd++;
+            }
+        }
+
+        BigDecimal result = function.apply(args, scale, roundingMode);
+        if(instrumented) {
+            operations++;
+            maxPrecision = Math.max(maxPrecision, result.precision());
+        }
+        return result;
+    }
+
+    /**
+     * evaluates if(condition, a, b): a if the condition is not zero, else b
+     * only the selected branch is evaluated, the other one is skipped without being parsed
+     * starts at the opening parenthesis and ends at the closing one
+     */
+    private BigDecimal evaluateConditional() {
+        currInd++;
+        BigDecimal condition = evaluate(true);
+        expectConditionalChar(ARG_SEPARATOR);
+
+        BigDecimal result;
+        currInd++;
+        if(condition.signum() != 0) {
+            result = evaluate(true);
+            expectConditionalChar(ARG_SEPARATOR);
+            currInd++;
+            skipArgument();
+        } else {
+            skipArgument();
+            expectConditionalChar(ARG_SEPARATOR);
+            currInd++;
+            result = evaluate(true);
+        }
+        expectConditionalChar(')');
         return result;
     }
 
+    private void expectConditionalChar(char expected) {
+        if(currInd >= chars.length || chars[currInd] != expected) {
+            String exp = this.exp;
+            throw new ExpressionSyntaxException(() -> String.format("%s expects exactly 3 arguments: %s", CONDITIONAL_NAME, exp));
+        }
+    }
+
+    /**
+     * moves the index to the end of the current function argument, i.e. to the next separator or closing parenthesis on the same level
+     */
+    private void skipArgument() {
+        int opened = 0;
+        while(currInd < chars.length) {
+            char c = chars[currInd];
+            if(c == '(') {
+                opened++;
+            } else if(c == ')' || c == ARG_SEPARATOR) {
+                if(opened == 0) {
+                    return;
+                }
+                if(c == ')') opened--;
+            }
+            currInd++;
+        }
+    }
+
+    /**
+     * reads the operator starting with the given char, advancing the index for two-char operators like {@code <=}
+     * @param c the first char of the operator
+     * @return the operator; two-char operators are represented by a single char, e.g. {@link #LESS_EQUAL}
+     */
+    private char readOperator(char c) {
+        boolean followedByEqual = currInd + 1 < chars.length && chars[currInd+1] == '=';
+        if(c == EQUAL || c == NOT) {
+            if(!followedByEqual) {
+                char[] chars = this.chars;
+                int pos = currInd;
+                throw new ExpressionSyntaxException(() -> String.format("Unknown operator %s, use == or != for comparisons: %s", c, getCurrentExpression(chars, Math.max(0, pos-1))));
+            }
+            currInd++;
+            return c == EQUAL ? EQUAL : NOT_EQUAL;
+        }
+        if(followedByEqual && (c == LESS || c == GREATER)) {
+            currInd++;
+            return c == LESS ? LESS_EQUAL : GREATER_EQUAL;
+        }
+        return c;
+    }
+
+    /**
+     * binds all function calls of the expression, so they need not be looked up during evaluation
+     * names of variables are not treated as function calls, i.e. a(b) with a variable a remains a multiplication
+     * @param chars the chars of the expression
+     * @return the functions indexed by the position of the opening parenthesis of their call, or null if there are no calls
+     */
+    private BigDecimalFunction[] bindFunctions(char[] chars) {
+        BigDecimalFunction[] bound = null;
+        for(int i = 1; i < chars.length; i++) {
+            if(chars[i] != '(' || !isNamePart(chars[i-1])) continue;
+
+            String name = getCallName(chars, i);
+            BigDecimalFunction function = vars.containsKey(name) ? null : getFunction(name);
+            if(function != null) {
+                if(bound == null) {
+                    bound = new BigDecimalFunction[chars.length];
+                }
+                bound[i] = function;
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * @param chars the chars of the expression
+     * @param parenthesis the position of the opening parenthesis of a call
+     * @return the name preceding the parenthesis
+     */
+    private static String getCallName(char[] chars, int parenthesis) {
+        int nameStart = parenthesis;
+        while(nameStart > 0 && isNamePart(chars[nameStart-1])) {
+            nameStart--;
+        }
+        return new String(chars, nameStart, parenthesis - nameStart);
+    }
+
+    private BigDecimalFunction getFunction(String name) {
+        if(name.equals(CONDITIONAL_NAME)) {
+            return CONDITIONAL;
+        }
+        BigDecimalFunction function = functions.get(name);
+        return function != null ? function : BuiltInFunctions.FUNCTIONS.get(name);
+    }
+
+    private static boolean isNameStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$';
+    }
+
+    private static boolean isNamePart(char c) {
+        return isNameStart(c) || (c >= '0' && c <= '9');
+    }
+
     private static int getOpIndex(char operator) {
         return operator;
     }
 
-    private void printTerms(String msg, Node node) {
-        System.out.println("----------------------------------");
-        System.out.println(msg);
-        while(node != null) {
-            System.out.println(" "+node.val.toString()+" "+Optional.ofNullable(node.op).orElse(' '));
-            node = node.next;
-        }
-        System.out.println("----------------------------------");
+    private static void traceTerms(String msg, Node node) {
+        // the message is only built if the logger actually accepts it
+        LOGGER.log(System.Logger.Level.DEBUG, () -> {
+            StringBuilder sb = new StringBuilder(msg);
+            for(Node n = node; n != null; n = n.next) {
+                sb.append(System.lineSeparator()).append(' ').append(n.val).append(' ').append(Optional.ofNullable(n.op).orElse(' '));
+            }
+            return sb.toString();
+        });
     }
 
     private BigDecimal applyOperations(Node startNode, OperationsLists nodesPerOp) {
         if(!nodesPerOp.pow.isEmpty()) {
-            applyOp(getOpMethod(POW), nodesPerOp.pow.startNode);
+            applyOp(nodesPerOp.pow.startNode);
         }
         if(!nodesPerOp.multiply.isEmpty()) {
-            applyOp(getOpMethod(MULTIPLY), nodesPerOp.multiply.startNode);
+            applyOp(nodesPerOp.multiply.startNode);
         }
         if(!nodesPerOp.divide.isEmpty()) {
-            applyOp(getOpMethod(DIVIDE), nodesPerOp.divide.startNode);
+            applyOp(nodesPerOp.divide.startNode);
         }
         if(!nodesPerOp.add.isEmpty()) {
-            applyOp(getOpMethod(ADD), nodesPerOp.add.startNode);
+            applyOp(nodesPerOp.add.startNode);
         }
         if(!nodesPerOp.subtract.isEmpty()) {
-            applyOp(getOpMethod(SUBTRACT), nodesPerOp.subtract.startNode);
+            applyOp(nodesPerOp.subtract.startNode);
+        }
+        if(nodesPerOp.compare != null) {
+            applyOp(nodesPerOp.compare.startNode);
         }
 
         return startNode.next.val;
     }
 
-    private void applyOp(BigDecimalOperation<BigDecimal, BigDecimal> operation, ListNode opNode) {
+    private void applyOp(ListNode opNode) {
         while(opNode != null) {
             Node n = opNode.node;
+            BigDecimalOperation<BigDecimal, BigDecimal> operation = getOpMethod(n.op);
 
             // keep refs of adjacent nodes
             Node left = n.prev;
             Node secondOperand = n.next;
 
             if(secondOperand == null) {
-                throw new ArithmeticException(String.format("Illegal Expression: missing right-hand operand in expression %s", exp));
+                String exp = this.exp;
+                throw new ExpressionSyntaxException(() -> String.format("Illegal Expression: missing right-hand operand in expression %s", exp));
             }
 
             // write result to right operand, as it possible contains an operation with another node - left one is unlinked
             secondOperand.val = operation.apply(n.val, secondOperand.val, scale, roundingMode);
+            if(instrumented) {
+                operations++;
+                maxPrecision = Math.max(maxPrecision, secondOperand.val.precision());
+            }
 
 
             // unlink processed node
@@ -329,39 +717,88 @@ public class BigDecimalExpression {
             case ADD -> (a, b, scale, rMode) -> a.add(b);
             case SUBTRACT -> (a, b, scale, rMode) -> a.subtract(b);
             case DIVIDE -> BigDecimal::divide;
+            case LESS -> (a, b, scale, rMode) -> toBigDecimal(a.compareTo(b) < 0);
+            case LESS_EQUAL -> (a, b, scale, rMode) -> toBigDecimal(a.compareTo(b) <= 0);
+            case GREATER -> (a, b, scale, rMode) -> toBigDecimal(a.compareTo(b) > 0);
+            case GREATER_EQUAL -> (a, b, scale, rMode) -> toBigDecimal(a.compareTo(b) >= 0);
+            case EQUAL -> (a, b, scale, rMode) -> toBigDecimal(a.compareTo(b) == 0);
+            case NOT_EQUAL -> (a, b, scale, rMode) -> toBigDecimal(a.compareTo(b) != 0);
             default -> throw new IllegalStateException("Unexpected value: " + op);
         };
     }
 
+    private static BigDecimal toBigDecimal(boolean comparison) {
+        return comparison ? BigDecimal.ONE : BigDecimal.ZERO;
+    }
+
     private BigDecimal getCurrentVal(char[] chars, int start, int i, boolean isEnd, boolean isEndOfSubExpr) {
+        // a term starting at a given position always spans the same chars, so it only has to be read once per parse
+        BigDecimal cached = terms[start];
+        if(cached != null) {
+            return cached;
+        }
+        if(resolver != null && slots != null && slots[start] != 0) {
+            return resolveVariable(slots[start] - 1);
+        }
+
         int expLastChar = isEnd && !isEndOfSubExpr ? i : i - 1;
         int length = expLastChar + 1 - start;
-        char[] newChars = new char[length];
-        System.arraycopy(chars, start, newChars, 0, length);
-        String currentTerm = new String(newChars);
+        String currentTerm = new String(chars, start, length);
         // check if term is a variable and if so, get it; else, treat term as value and create BigDecimal
-        return Optional
-                .ofNullable(vars.get(currentTerm))
-                .orElseGet(() -> {
-                    // parse value and save to map to avoid parsing the same value multiple times
-                    BigDecimal newVal = new BigDecimal(newChars);
-                    vars.put(currentTerm, newVal);
-                    return newVal;
-                });
+        BigDecimal val = vars.get(currentTerm);
+        if(val == null) {
+            // names not passed to parse are resolved anew in each evaluation, so they are not cached
+            if(resolver != null && isNameStart(chars[start])) {
+                return resolveVariable(assignSlot(currentTerm, start));
+            }
+            val = new BigDecimal(chars, start, length);
+        }
+        terms[start] = val;
+        return val;
+    }
+
+    /**
+     * resolves the variable in the given slot, calling the resolver only if it has not been resolved during this evaluation yet
+     */
+    private BigDecimal resolveVariable(int slot) {
+        BigDecimal val = resolved[slot];
+        if(val == null) {
+            String name = slotNames.get(slot);
+            val = resolver.resolve(name);
+            if(val == null) {
+                throw new ArithmeticException(String.format("Variable could not be resolved: %s", name));
+            }
+            resolved[slot] = val;
+        }
+        return val;
+    }
+
+    private int assignSlot(String name, int start) {
+        int slot = slotNames.indexOf(name);
+        if(slot < 0) {
+            slot = slotNames.size();
+            slotNames.add(name);
+            resolved = resolved == null ? new BigDecimal[1] : Arrays.copyOf(resolved, slotNames.size());
+        }
+        if(slots == null) {
+            slots = new int[chars.length];
+        }
+        slots[start] = slot + 1;
+        return slot;
     }
 
 
     /**
      * returns the current (sub-)expression
      * when in a sub expression (start > 0) return that part only; else, return the whole expression
+     * @param chars the chars of the whole expression
      * @param start start of the expression
      * @return the current expression
      */
-    private String getCurrentExpression(int start) {
+    private static String getCurrentExpression(char[] chars, int start) {
         int opened = 0;
         int length = 0;
         boolean isMainExp = start == 0;
-        System.out.println("current start "+start);
         int pos;
         do {
             pos = start + length;
@@ -399,7 +836,8 @@ public class BigDecimalExpression {
     }
 
     private boolean isOperator(Character c) {
-        return c == POW || c == MULTIPLY || c == DIVIDE || c == SUBTRACT || c == ADD ;
+        return c == POW || c == MULTIPLY || c == DIVIDE || c == SUBTRACT || c == ADD
+                || c == LESS || c == GREATER || c == EQUAL || c == NOT;
     }
 
     private boolean validateParentheses(String haystack) {
@@ -413,6 +851,57 @@ public class BigDecimalExpression {
         return opening == closing;
     }
 
+    /**
+     * ArithmeticException for malformed expressions; the message, which may contain
+     * the offending part of the expression, is only built when it is read
+     */
+    private static class ExpressionSyntaxException extends ArithmeticException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        // not serializable; the message is built before serialization instead
+        private transient Supplier<String> messageSupplier;
+        private String message;
+
+        ExpressionSyntaxException(Supplier<String> messageSupplier) {
+            this.messageSupplier = messageSupplier;
+        }
+
+        @Override
+        public synchronized String getMessage() {
+            if(messageSupplier != null) {
+                message = messageSupplier.get();
+                messageSupplier = null;
+            }
+            return message;
+        }
+
+        @Serial
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            getMessage();
+            out.defaultWriteObject();
+        }
+    }
+
+    private static class AggregationWorker {
+        final BigDecimalExpression expression;
+        final BigDecimalAggregate aggregate;
+
+        AggregationWorker(BigDecimalExpression expression) {
+            this.expression = expression;
+            this.aggregate = new BigDecimalAggregate(expression.scale, expression.roundingMode);
+        }
+
+        void add(VariableResolver row) {
+            aggregate.add(expression.eval(row));
+        }
+
+        AggregationWorker merge(AggregationWorker other) {
+            aggregate.merge(other.aggregate);
+            return this;
+        }
+    }
+
     private static class Node {
         BigDecimal val;
         Character op;
@@ -464,6 +953,8 @@ public class BigDecimalExpression {
         NodeList divide = new NodeList();
         NodeList subtract = new NodeList();
         NodeList add = new NodeList();
+        // comparisons are rare, so their list is only created when needed
+        NodeList compare;
 
         public void add(Node node) {
             if(node == null) return;
@@ -474,6 +965,7 @@ public class BigDecimalExpression {
                 case DIVIDE -> divide;
                 case SUBTRACT -> subtract;
                 case ADD -> add;
+                case LESS, LESS_EQUAL, GREATER, GREATER_EQUAL, EQUAL, NOT_EQUAL -> compare != null ? compare : (compare = new NodeList());
                 default -> throw new IllegalStateException("Unexpected value: " + node.op);
             };
             opList.add(node);
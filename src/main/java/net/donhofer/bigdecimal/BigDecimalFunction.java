@@ -0,0 +1,20 @@
+package net.donhofer.bigdecimal;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+
+/**
+ * functional interface describing a function that can be called from an expression, e.g. max(a, b)
+ */
+@FunctionalInterface
+public interface BigDecimalFunction {
+    /**
+     * apply the function
+     * @param args the evaluated arguments
+     * @param scale scale for division operations
+     * @param roundingMode rounding mode for division operations
+     * @return the result
+     */
+    BigDecimal apply(List<BigDecimal> args, int scale, RoundingMode roundingMode);
+}
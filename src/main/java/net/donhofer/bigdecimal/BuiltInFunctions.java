@@ -0,0 +1,82 @@
+package net.donhofer.bigdecimal;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * functions available in every expression
+ */
+final class BuiltInFunctions {
+    static final Map<String, BigDecimalFunction> FUNCTIONS = Map.of(
+            "min", BuiltInFunctions::min,
+            "max", BuiltInFunctions::max,
+            "abs", BuiltInFunctions::abs,
+            "round", BuiltInFunctions::round,
+            "sqrt", BuiltInFunctions::sqrt,
+            "sum", BuiltInFunctions::sum
+    );
+
+    private BuiltInFunctions() {
+    }
+
+    static BigDecimal min(List<BigDecimal> args, int scale, RoundingMode roundingMode) {
+        checkArgs("min", args, 1, Integer.MAX_VALUE);
+        BigDecimal min = args.get(0);
+        for(int i = 1; i < args.size(); i++) {
+            min = min.min(args.get(i));
+        }
+        return min;
+    }
+
+    static BigDecimal max(List<BigDecimal> args, int scale, RoundingMode roundingMode) {
+        checkArgs("max", args, 1, Integer.MAX_VALUE);
+        BigDecimal max = args.get(0);
+        for(int i = 1; i < args.size(); i++) {
+            max = max.max(args.get(i));
+        }
+        return max;
+    }
+
+    static BigDecimal abs(List<BigDecimal> args, int scale, RoundingMode roundingMode) {
+        checkArgs("abs", args, 1, 1);
+        return args.get(0).abs();
+    }
+
+    /**
+     * round(x) rounds to an integer, round(x, n) to n decimal places; both use the configured rounding mode
+     */
+    static BigDecimal round(List<BigDecimal> args, int scale, RoundingMode roundingMode) {
+        checkArgs("round", args, 1, 2);
+        int places = args.size() == 2 ? args.get(1).intValueExact() : 0;
+        return args.get(0).setScale(places, roundingMode);
+    }
+
+    /**
+     * the square root, computed with just enough precision for the configured scale
+     */
+    static BigDecimal sqrt(List<BigDecimal> args, int scale, RoundingMode roundingMode) {
+        checkArgs("sqrt", args, 1, 1);
+        BigDecimal x = args.get(0);
+        // the root has half as many integer digits as x
+        int integerDigits = Math.floorDiv(x.precision() - x.scale() + 1, 2);
+        MathContext mc = new MathContext(Math.max(1, integerDigits + scale), roundingMode);
+        return x.sqrt(mc).setScale(scale, roundingMode);
+    }
+
+    static BigDecimal sum(List<BigDecimal> args, int scale, RoundingMode roundingMode) {
+        BigDecimal sum = BigDecimal.ZERO;
+        for(BigDecimal arg : args) {
+            sum = sum.add(arg);
+        }
+        return sum;
+    }
+
+    private static void checkArgs(String name, List<BigDecimal> args, int min, int max) {
+        if(args.size() < min || args.size() > max) {
+            throw new ArithmeticException(String.format("Wrong no. of arguments for function %s: %d", name, args.size()));
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package net.donhofer.bigdecimal;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder event covering a single evaluation
+ */
+@Name("net.donhofer.bigdecimal.Evaluation")
+@Label("Expression Evaluation")
+@Category("BigDecimalExpression")
+@Description("Evaluation of a BigDecimalExpression")
+class EvaluationEvent extends jdk.jfr.Event {
+    @Label("Expression")
+    String expression;
+
+    @Label("Operations")
+    int operations;
+
+    @Label("Max. Precision")
+    @Description("Highest precision of all intermediate results")
+    int maxPrecision;
+
+    @Label("Failed")
+    boolean failed;
+}
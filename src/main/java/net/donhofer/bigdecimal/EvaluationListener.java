@@ -0,0 +1,25 @@
+package net.donhofer.bigdecimal;
+
+/**
+ * listener notified after each evaluation of a BigDecimalExpression
+ * no measurements are taken while no listener is registered and the JFR events are disabled
+ */
+public interface EvaluationListener {
+    /**
+     * called after an expression has been evaluated successfully
+     * @param expression the evaluated expression
+     * @param durationNanos the duration of the evaluation in nanoseconds
+     * @param operations the number of applied operations
+     * @param maxPrecision the highest precision of all intermediate results
+     */
+    void evaluated(String expression, long durationNanos, int operations, int maxPrecision);
+
+    /**
+     * called after the evaluation of an expression has failed
+     * @param expression the evaluated expression
+     * @param durationNanos the duration of the evaluation in nanoseconds
+     * @param cause the exception thrown by the evaluation
+     */
+    default void failed(String expression, long durationNanos, Throwable cause) {
+    }
+}
@@ -0,0 +1,123 @@
+package net.donhofer.bigdecimal;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * thread-safe EvaluationListener collecting counters and a latency histogram per expression
+ */
+public class EvaluationMetrics implements EvaluationListener {
+    /**
+     * number of latency buckets; bucket i holds durations in [2^(i-1), 2^i) nanoseconds
+     */
+    public static final int BUCKETS = 64;
+
+    private final Map<String, ExpressionStats> stats = new ConcurrentHashMap<>();
+
+    @Override
+    public void evaluated(String expression, long durationNanos, int operations, int maxPrecision) {
+        ExpressionStats s = get(expression);
+        s.evaluations.increment();
+        s.operations.add(operations);
+        s.totalNanos.add(durationNanos);
+        s.histogram.incrementAndGet(bucket(durationNanos));
+        s.maxPrecision.accumulateAndGet(maxPrecision, Math::max);
+    }
+
+    @Override
+    public void failed(String expression, long durationNanos, Throwable cause) {
+        ExpressionStats s = get(expression);
+        s.failures.increment();
+        s.totalNanos.add(durationNanos);
+        s.histogram.incrementAndGet(bucket(durationNanos));
+    }
+
+    /**
+     * get the statistics of an expression, creating them if necessary
+     * @param expression the expression, without spaces
+     * @return the statistics of the expression
+     */
+    public ExpressionStats get(String expression) {
+        return stats.computeIfAbsent(expression, e -> new ExpressionStats());
+    }
+
+    /**
+     * @return an unmodifiable view of the statistics of all expressions evaluated so far
+     */
+    public Map<String, ExpressionStats> getAll() {
+        return Collections.unmodifiableMap(stats);
+    }
+
+    /**
+     * discard all collected statistics
+     */
+    public void reset() {
+        stats.clear();
+    }
+
+    private static int bucket(long durationNanos) {
+        return durationNanos <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(durationNanos);
+    }
+
+    /**
+     * counters and latency histogram of a single expression
+     */
+    public static class ExpressionStats {
+        private final LongAdder evaluations = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder operations = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicInteger maxPrecision = new AtomicInteger();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        /**
+         * @return the number of successful evaluations
+         */
+        public long getEvaluations() {
+            return evaluations.sum();
+        }
+
+        /**
+         * @return the number of failed evaluations
+         */
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        /**
+         * @return the number of operations applied by all successful evaluations
+         */
+        public long getOperations() {
+            return operations.sum();
+        }
+
+        /**
+         * @return the accumulated duration of all evaluations in nanoseconds
+         */
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        /**
+         * @return the highest precision of any intermediate result
+         */
+        public int getMaxPrecision() {
+            return maxPrecision.get();
+        }
+
+        /**
+         * @return a copy of the latency histogram; see {@link EvaluationMetrics#BUCKETS}
+         */
+        public long[] getHistogram() {
+            long[] copy = new long[BUCKETS];
+            for(int i = 0; i < BUCKETS; i++) {
+                copy[i] = histogram.get(i);
+            }
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package net.donhofer.bigdecimal;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder event covering the parsing of an expression
+ */
+@Name("net.donhofer.bigdecimal.Parse")
+@Label("Expression Parsing")
+@Category("BigDecimalExpression")
+@Description("Parsing of a BigDecimalExpression")
+class ParseEvent extends jdk.jfr.Event {
+    @Label("Expression")
+    String expression;
+
+    @Label("Variables")
+    int variables;
+}
@@ -0,0 +1,17 @@
+package net.donhofer.bigdecimal;
+
+import java.math.BigDecimal;
+
+/**
+ * functional interface for resolving variables on demand during an evaluation
+ * it is called at most once per variable and evaluation, and only for variables the evaluation actually reaches
+ */
+@FunctionalInterface
+public interface VariableResolver {
+    /**
+     * resolve a variable
+     * @param name the name of the variable
+     * @return the value of the variable; null if it is unknown
+     */
+    BigDecimal resolve(String name);
+}
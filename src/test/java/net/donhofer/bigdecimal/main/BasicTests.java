@@ -1,14 +1,23 @@
 package net.donhofer.bigdecimal.main;
 
+import net.donhofer.bigdecimal.BigDecimalAggregate;
 import net.donhofer.bigdecimal.BigDecimalExpression;
 import net.donhofer.bigdecimal.BigDecimalExpException;
+import net.donhofer.bigdecimal.EvaluationMetrics;
+import net.donhofer.bigdecimal.VariableResolver;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.ref.WeakReference;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Supplier;
@@ -52,7 +61,16 @@ public class BasicTests {
                 Arguments.of("0.014000 ^ 2 ((13.73/10)+2*13.73+0.014000)", Map.of(), true), // implicit multiplication
                 Arguments.of("(100/10) * (3+2)", Map.of(), true),
                 Arguments.of("(100/10) * (3+2)\n+2", Map.of(), false), // new line
-                Arguments.of("(100/10) * (3+2)-", Map.of(), true) // operator as last symbol - makes no sense, but will work
+                Arguments.of("(100/10) * (3+2)-", Map.of(), true), // operator as last symbol - makes no sense, but will work
+                Arguments.of("max(a, b) * abs(-2)", Map.of("a", new BigDecimal("1"), "b", new BigDecimal("2")), true), // function calls
+                Arguments.of("1, 2", Map.of(), false), // argument separator outside of a function call
+                Arguments.of("max((1, 2), 3)", Map.of(), false), // argument separator in a sub-expression
+                Arguments.of("abs(1, 2)", Map.of(), false), // wrong no. of arguments
+                Arguments.of("unknown(1)", Map.of(), false), // unknown function
+                Arguments.of("if(a <= b, a, b) + (a != b)", Map.of("a", new BigDecimal("1"), "b", new BigDecimal("2")), true), // comparisons and conditional
+                Arguments.of("1 = 1", Map.of(), false), // assignment is not a comparison
+                Arguments.of("1 <> 1", Map.of(), false), // duplicate operators
+                Arguments.of("if(1, 2)", Map.of(), false) // wrong no. of arguments of the conditional
         );
     }
 
@@ -195,10 +213,96 @@ public class BasicTests {
                         Map.of(),
                         new BigDecimal("-15"),
                         true
+                ),
+                // nested sub-expressions
+                Arguments.of(
+                        "((2+3))",
+                        Map.of(),
+                        new BigDecimal("5"),
+                        true
+                ),
+                // function calls
+                Arguments.of(
+                        "max(a, b * 2, 3) + min(a, b) - abs(-1)",
+                        Map.of("a", a1, "b", b1),
+                        new BigDecimal("3.014"),
+                        true
+                ),
+                Arguments.of(
+                        "2 * sum(1, (2 + 3), c) - max(1, 2)",
+                        Map.of("c", c1),
+                        new BigDecimal("37.46"),
+                        true
+                ),
+                Arguments.of(
+                        "round(c / 3, 2) * -round(2.5)",
+                        Map.of("c", c1),
+                        new BigDecimal("-13.74"),
+                        true
+                ),
+                Arguments.of(
+                        "sqrt(a2 / b2)",
+                        Map.of("a2", a2, "b2", b2),
+                        a2.divide(b2, scale, roundingMode).sqrt(new java.math.MathContext(34, roundingMode)).setScale(scale, roundingMode),
+                        true
+                ),
+                // comparisons have the lowest precedence and evaluate to 1 or 0
+                Arguments.of(
+                        "(a < b) + (a <= a) + (b > a) + (a >= b) + (c == 13.7300) + (c != c)",
+                        Map.of("a", a1, "b", b1, "c", c1),
+                        new BigDecimal("4"),
+                        true
+                ),
+                Arguments.of(
+                        "b * 2 > c - 10",
+                        Map.of("b", b1, "c", c1),
+                        BigDecimal.ONE,
+                        true
+                ),
+                // only the selected branch of a conditional is evaluated, so the division by zero is never reached
+                Arguments.of(
+                        "if(a < b, c * 2, c / 0) + if(a >= b, 1 / 0, -1)",
+                        Map.of("a", a1, "b", b1, "c", c1),
+                        new BigDecimal("26.46"),
+                        true
+                ),
+                Arguments.of(
+                        "2 * -if(c > 10, max(a, (b)), if(a, (2), 3))",
+                        Map.of("a", a1, "b", b1, "c", c1),
+                        new BigDecimal("-4"),
+                        true
+                ),
+                // a variable followed by parentheses remains an implicit multiplication
+                Arguments.of(
+                        "max(2)",
+                        Map.of("max", new BigDecimal("3")),
+                        new BigDecimal("6"),
+                        true
                 )
         );
     }
 
+    /**
+     * terms are cached per parse: repeated evaluations return the same result,
+     * while parsing again, even the same expression, uses the new variables
+     */
+    @Test
+    public void testTermCache() {
+        BigDecimalExpression bde = new BigDecimalExpression(scale, roundingMode)
+                .parse("a * 2.5 + (b - 1)", Map.of("a", new BigDecimal("2"), "b", new BigDecimal("3")));
+        for(int i = 0; i < 3; i++) {
+            assertEquals(0, new BigDecimal("7").compareTo(bde.eval()));
+        }
+
+        bde.parse("a * 2.5 + (b - 1)", Map.of("a", new BigDecimal("4"), "b", new BigDecimal("-1")));
+        assertEquals(0, new BigDecimal("8").compareTo(bde.eval()));
+        assertEquals(0, new BigDecimal("8").compareTo(bde.eval()));
+
+        // same positions, but different terms
+        bde.parse("b * 3.5 + (a - 2)", Map.of("a", new BigDecimal("4"), "b", new BigDecimal("2")));
+        assertEquals(0, new BigDecimal("9").compareTo(bde.eval()));
+    }
+
     // TODO make this test more exhaustive
     @Test
     public void testVariableExtraction() {
@@ -215,14 +319,213 @@ public class BasicTests {
     public void testIllegalCharDetection() {
         assertFalse(BigDecimalExpression.containsIllegalChar("0.014000 ^ 2 *((13.73/10)+2*13.73+0.014000) - 1"));
         assertTrue(BigDecimalExpression.containsIllegalChar("0.014000 ^ 2: *((13.73/10)+2*13.73+0.014000)")); // colon
-        assertTrue(BigDecimalExpression.containsIllegalChar("0,014000 ^ 2 *((13.73/10)+2*13.73+0.014000)")); // comma
+        assertFalse(BigDecimalExpression.containsIllegalChar("max(0.014000, 2) *((13.73/10)+2*13.73+0.014000)")); // comma as argument separator
         assertTrue(BigDecimalExpression.containsIllegalChar("0.014000 ^ 2 *([13.73/10]+2*13.73+0.014000)")); // square brackets
-        assertTrue(BigDecimalExpression.containsIllegalChar("0.014000 ^ 2 *((13.73/10)+2*13.7>3+0.014000)<")); // less/larger than signs
+        assertFalse(BigDecimalExpression.containsIllegalChar("0.014000 ^ 2 *((13.73/10)+2*13.7>3+0.014000)<")); // less/larger than signs are comparisons
         assertTrue(BigDecimalExpression.containsIllegalChar("0.014000 ^ 2%1 *((13.73/10)+2*13.73+0.014000)")); // percent sign/modulo operator
         assertTrue(BigDecimalExpression.containsIllegalChar("{0.014000} ^ 2 *((13.73/10)+2*13.73+0.014000)")); // curly braces
         assertTrue(BigDecimalExpression.containsIllegalChar("{0.014000} ^ 2 *\\((13.73/10)+2*13.73+0.014000)")); // backslash
     }
 
+    /**
+     * only names that are called are function names; other occurrences of the same name are variables
+     */
+    @Test
+    public void testValidationOfFunctionNames() {
+        BigDecimalExpression bde = new BigDecimalExpression(scale, roundingMode);
+        assertTrue(bde.parse("max(1, 2) + round(sqrt(3)) * if(1, 2, 3)").isValid());
+        assertFalse(bde.parse("max + 1").isValid());
+        assertFalse(bde.parse("sqrt * 2").isValid());
+        assertFalse(bde.parse("if").isValid());
+        assertFalse(bde.parse("max(1, 2) + max").isValid());
+        assertTrue(bde.parse("max(2) + max", Map.of("max", BigDecimal.ONE)).isValid()); // a variable: implicit multiplication
+    }
+
+    @Test
+    public void testCustomFunctions() {
+        BigDecimalExpression bde = new BigDecimalExpression(scale, roundingMode)
+                .function("avg", (args, scale, rMode) -> args.stream()
+                        .reduce(BigDecimal.ZERO, BigDecimal::add)
+                        .divide(BigDecimal.valueOf(args.size()), scale, rMode))
+                .function("abs", (args, scale, rMode) -> BigDecimal.ONE) // replaces the built-in function
+                .parse("avg(a, 2, 3) * abs(-5)", Map.of("a", BigDecimal.ONE));
+
+        assertTrue(bde.isValid());
+        assertEquals(0, bde.eval().compareTo(new BigDecimal("2")));
+        assertThrows(IllegalArgumentException.class, () -> bde.function("1x", (args, scale, rMode) -> BigDecimal.ONE));
+        assertThrows(IllegalArgumentException.class, () -> bde.function("if", (args, scale, rMode) -> BigDecimal.ONE));
+    }
+
+    @Test
+    public void testVariableResolver() {
+        Map<String, Integer> calls = new java.util.HashMap<>();
+        VariableResolver resolver = name -> {
+            calls.merge(name, 1, Integer::sum);
+            return name.equals("unknown") ? null : new BigDecimal(name.length());
+        };
+        BigDecimalExpression bde = new BigDecimalExpression(scale, roundingMode)
+                .parse("if(a < bb, a * bb + a, expensive) + ccc + c", Map.of("c", BigDecimal.TEN));
+
+        // 1 * 2 + 1 + 3 + 10; each variable is resolved once, variables of the skipped branch or passed to parse are never resolved
+        assertEquals(0, bde.eval(resolver).compareTo(new BigDecimal("16")));
+        assertEquals(Map.of("a", 1, "bb", 1, "ccc", 1), calls);
+
+        // values are memoized per evaluation only
+        assertEquals(0, bde.eval(resolver).compareTo(new BigDecimal("16")));
+        assertEquals(Map.of("a", 2, "bb", 2, "ccc", 2), calls);
+
+        assertThrows(BigDecimalExpException.class, bde::eval);
+        assertThrows(BigDecimalExpException.class, () -> bde.parse("unknown * 2").eval(resolver));
+    }
+
+    /**
+     * neither the resolver nor the values it resolved remain reachable from the instance after an evaluation, successful or not
+     */
+    @ParameterizedTest
+    @MethodSource("getResolverReleaseExpressions")
+    public void testResolverIsReleasedAfterEval(String expression, boolean shouldSucceed) throws InterruptedException {
+        BigDecimalExpression bde = new BigDecimalExpression(scale, roundingMode).parse(expression);
+        List<WeakReference<Object>> refs = evalWithWeaklyReferencedResolver(bde, shouldSucceed);
+
+        for(int i = 0; i < 50 && refs.stream().anyMatch(ref -> ref.get() != null); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertTrue(refs.stream().allMatch(ref -> ref.get() == null), "The resolver or its values are still reachable");
+        assertNotNull(bde);
+    }
+
+    private static Stream<Arguments> getResolverReleaseExpressions() {
+        return Stream.of(
+                Arguments.of("a * 2", true),
+                Arguments.of("a / 0", false)
+        );
+    }
+
+    private static List<WeakReference<Object>> evalWithWeaklyReferencedResolver(BigDecimalExpression bde, boolean shouldSucceed) {
+        BigDecimal value = new BigDecimal("123456789.123456789");
+        VariableResolver resolver = name -> value;
+        if(shouldSucceed) {
+            bde.eval(resolver);
+        } else {
+            assertThrows(BigDecimalExpException.class, () -> bde.eval(resolver));
+        }
+        return List.of(new WeakReference<>(value), new WeakReference<>(resolver));
+    }
+
+    @Test
+    public void testAggregation() {
+        BigDecimalExpression bde = new BigDecimalExpression(2, roundingMode).parse("price * qty / 3");
+        List<VariableResolver> rows = java.util.stream.IntStream.rangeClosed(1, 1000)
+                .mapToObj(i -> (VariableResolver) Map.of("price", new BigDecimal(i + ".5"), "qty", BigDecimal.valueOf(i % 7))::get)
+                .toList();
+
+        BigDecimal expectedSum = BigDecimal.ZERO;
+        for(VariableResolver row : rows) {
+            expectedSum = expectedSum.add(bde.eval(row));
+        }
+
+        BigDecimalAggregate aggregate = bde.aggregate(rows);
+        assertEquals(1000, aggregate.getCount());
+        assertEquals(0, expectedSum.compareTo(aggregate.getSum()));
+        assertEquals(0, expectedSum.compareTo(bde.sumOver(rows)));
+        assertEquals(0, BigDecimal.ZERO.compareTo(aggregate.getMin()));
+        assertEquals(0, expectedSum.divide(BigDecimal.valueOf(1000), 2, roundingMode).compareTo(aggregate.getAverage()));
+
+        BigDecimalAggregate parallel = rows.parallelStream().collect(bde.aggregating());
+        assertEquals(0, aggregate.getSum().compareTo(parallel.getSum()));
+        assertEquals(0, aggregate.getMax().compareTo(parallel.getMax()));
+        assertEquals(aggregate.getCount(), parallel.getCount());
+    }
+
+    @Test
+    public void testAggregateIsExact() {
+        BigDecimalAggregate aggregate = new BigDecimalAggregate(scale, roundingMode);
+        assertEquals(0, BigDecimal.ZERO.compareTo(aggregate.getSum()));
+        assertNull(aggregate.getAverage());
+
+        // mixed scales and a sum exceeding the range of long
+        List<BigDecimal> values = List.of(
+                new BigDecimal("9000000000000000000"), new BigDecimal("0.000000000000000000001"), new BigDecimal("-1.5"),
+                new BigDecimal("9000000000000000000"), new BigDecimal("1E+3"), new BigDecimal("-9000000000000000000.25")
+        );
+        BigDecimalAggregate other = new BigDecimalAggregate(scale, roundingMode);
+        BigDecimal expected = BigDecimal.ZERO;
+        for(int i = 0; i < values.size(); i++) {
+            (i % 2 == 0 ? aggregate : other).add(values.get(i));
+            expected = expected.add(values.get(i));
+        }
+
+        aggregate.merge(other);
+        assertEquals(6, aggregate.getCount());
+        assertEquals(0, expected.compareTo(aggregate.getSum()));
+        assertEquals(0, new BigDecimal("-9000000000000000000.25").compareTo(aggregate.getMin()));
+        assertEquals(0, new BigDecimal("9000000000000000000").compareTo(aggregate.getMax()));
+    }
+
+    /**
+     * error messages are only built when read, also after being wrapped in a BigDecimalExpException
+     */
+    @Test
+    public void testLazyErrorMessages() {
+        int[] messageReads = {0};
+        RuntimeException failure = new ArithmeticException() {
+            @Override
+            public String getMessage() {
+                messageReads[0]++;
+                return "failed";
+            }
+        };
+        BigDecimalExpression bde = new BigDecimalExpression(scale, roundingMode)
+                .function("fail", (args, scale, rMode) -> { throw failure; })
+                .parse("1 + fail(2)");
+
+        BigDecimalExpException e = assertThrows(BigDecimalExpException.class, bde::eval);
+        assertEquals(0, messageReads[0]);
+        assertSame(failure, e.getCause());
+        assertEquals("failed", e.getCause().getMessage());
+        assertEquals(1, messageReads[0]);
+    }
+
+    /**
+     * syntax errors whose message was never read can be serialized, and the message survives
+     */
+    @Test
+    public void testSyntaxErrorSerialization() throws Exception {
+        BigDecimalExpException e = assertThrows(BigDecimalExpException.class, () -> new BigDecimalExpression().parse("1 + (2 ^^ 3)").eval());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(e);
+        }
+        BigDecimalExpException copy;
+        try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (BigDecimalExpException) in.readObject();
+        }
+
+        assertEquals("1+(2^^3)", copy.getExpression());
+        assertEquals("duplicate operators (op. 1: ^, op. 2: ^): (2^^3)", copy.getCause().getMessage());
+    }
+
+    @Test
+    public void testEvaluationMetrics() {
+        EvaluationMetrics metrics = new EvaluationMetrics();
+        BigDecimalExpression bde = new BigDecimalExpression(scale, roundingMode)
+                .listener(metrics)
+                .parse("a * b + (c / 2)", Map.of("a", BigDecimal.TEN, "b", new BigDecimal("2.5"), "c", BigDecimal.ONE));
+        bde.eval();
+        bde.eval();
+        assertThrows(BigDecimalExpException.class, () -> bde.parse("1 ^^ 2").eval());
+
+        EvaluationMetrics.ExpressionStats stats = metrics.get("a*b+(c/2)");
+        assertEquals(2, stats.getEvaluations());
+        assertEquals(0, stats.getFailures());
+        assertEquals(6, stats.getOperations());
+        assertEquals(32, stats.getMaxPrecision());
+        assertEquals(2, Arrays.stream(stats.getHistogram()).sum());
+        assertEquals(1, metrics.get("1^^2").getFailures());
+    }
+
     @ParameterizedTest
     @MethodSource("getSpeedTestArgs")
     public void testSpeedDifference(String expression, Map<String, BigDecimal> params, Supplier<BigDecimal> nativeBD, BigDecimal expectedResult) {
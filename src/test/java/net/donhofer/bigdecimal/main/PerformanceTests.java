@@ -0,0 +1,166 @@
+package net.donhofer.bigdecimal.main;
+
+import net.donhofer.bigdecimal.BigDecimalExpression;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * regression tests for allocation per evaluation and for throughput of concurrently used instances
+ */
+public class PerformanceTests {
+    // MathContext definitions for these tests
+    static final int scale = 30;
+    static final RoundingMode roundingMode = RoundingMode.HALF_UP;
+
+    // runs used to warm up the JIT before measuring
+    static final int warmupRuns = 200_000;
+    static final int measuredRuns = 100_000;
+
+    // evaluations per thread in the throughput test
+    static final int runsPerThread = 100_000;
+    // the best of several samples is compared, so a single slow run does not fail the test
+    static final int throughputSamples = 5;
+    // min. ratio of the measured throughput to the throughput expected from linear scaling
+    static final double minScalingEfficiency = 0.5;
+
+    /**
+     * tests that the bytes allocated per evaluation stay within the recorded limits
+     * @param expression the expression to be evaluated
+     * @param params the Map of param to BigDecimal, for all parameters used in the expression
+     * @param maxBytesPerEval the recorded limit, i.e. the allocation measured at the time of recording plus some headroom
+     */
+    @ParameterizedTest
+    @MethodSource("getAllocationTestArgs")
+    public void testAllocationPerEval(String expression, Map<String, BigDecimal> params, long maxBytesPerEval) {
+        com.sun.management.ThreadMXBean threadMXBean = getThreadMXBean();
+        BigDecimalExpression bde = new BigDecimalExpression(scale, roundingMode).parse(expression, params);
+        for(int i = 0; i < warmupRuns; i++) {
+            bde.eval();
+        }
+
+        long allocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+        for(int i = 0; i < measuredRuns; i++) {
+            bde.eval();
+        }
+        long bytesPerEval = (threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBefore) / measuredRuns;
+
+        System.out.println("Bytes allocated per eval of "+expression+": "+bytesPerEval);
+        assertTrue(bytesPerEval <= maxBytesPerEval, String.format("Allocated %d bytes per eval, the limit is %d", bytesPerEval, maxBytesPerEval));
+    }
+
+    private static Stream<Arguments> getAllocationTestArgs() {
+        return Stream.of(
+                Arguments.of("a^b*((c/d)+b*c+a)", getParams(), 2_600L),
+                Arguments.of("(a/b+f)*g+(c-g/d-e)/h", getParams(), 3_500L),
+                Arguments.of("(17000000000/1000000+1)*10+(18-10/5-13)/2", Map.of(), 3_600L)
+        );
+    }
+
+    /**
+     * tests that the throughput of instances used by separate threads scales with the number of threads,
+     * as far as there are processors available
+     */
+    @Test
+    public void testThroughputUnderContention() throws InterruptedException {
+        int processors = Runtime.getRuntime().availableProcessors();
+        List<Integer> threadCounts = new ArrayList<>(List.of(1, 2, 4));
+        if(!threadCounts.contains(processors)) {
+            threadCounts.add(processors);
+        }
+
+        // warm up, so that the single-threaded baseline is not measured with interpreted code
+        for(int i = 0; i < 3; i++) {
+            measureThroughput(1);
+        }
+        double singleThreaded = measureBestThroughput(1);
+        for(int threads : threadCounts) {
+            double throughput = measureBestThroughput(threads);
+            double efficiency = throughput / (singleThreaded * Math.min(threads, processors));
+
+            System.out.println(String.format(java.util.Locale.US, "Threads: %d; evals per second: %.0f; scaling efficiency: %.2f", threads, throughput, efficiency));
+            assertTrue(efficiency >= minScalingEfficiency, String.format(java.util.Locale.US, "Scaling efficiency with %d threads is %.2f, the limit is %.2f", threads, efficiency, minScalingEfficiency));
+        }
+    }
+
+    /**
+     * @param threads the number of threads
+     * @return the highest throughput of several samples, in evaluations per second over all threads
+     */
+    private static double measureBestThroughput(int threads) throws InterruptedException {
+        double best = 0;
+        for(int i = 0; i < throughputSamples; i++) {
+            best = Math.max(best, measureThroughput(threads));
+        }
+        return best;
+    }
+
+    /**
+     * evaluates representative expressions on the given number of threads, each with its own instances
+     * @param threads the number of threads
+     * @return evaluations per second over all threads
+     */
+    private static double measureThroughput(int threads) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        List<Throwable> errors = new ArrayList<>();
+
+        for(int t = 0; t < threads; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    List<BigDecimalExpression> expressions = getAllocationTestArgs()
+                            .map(args -> new BigDecimalExpression(scale, roundingMode).parse((String) args.get()[0], getParams()))
+                            .toList();
+                    start.await();
+                    for(int i = 0; i < runsPerThread; i++) {
+                        expressions.get(i % expressions.size()).eval();
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        done.await();
+        long duration = System.nanoTime() - startTime;
+
+        assertTrue(errors.isEmpty(), () -> "Evaluation failed: "+errors.get(0));
+        return (double) threads * runsPerThread / (duration / 1_000_000_000.0);
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadMXBean() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean, "Thread allocation counters are not available");
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean.isThreadAllocatedMemorySupported(), "Thread allocation counters are not supported");
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        return threadMXBean;
+    }
+
+    private static Map<String, BigDecimal> getParams() {
+        return Map.of(
+                "a", new BigDecimal("17000000000"), "b", new BigDecimal("2"), "c", new BigDecimal("13.73"),
+                "d", new BigDecimal("5"), "e", new BigDecimal("13"), "f", new BigDecimal("1"),
+                "g", new BigDecimal("10"), "h", new BigDecimal("2")
+        );
+    }
+}